@@ -1,15 +1,30 @@
 package CCS;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * A class for reading and writing Collections.
@@ -46,87 +61,307 @@ public class Collection {
 	 * @throws InvalidSyntaxException If the String does not contain a Collection or if it contains an invalid key (or two equal keys).
 	 */
 	public Collection(String collection) {
-		Parser.fillRaw(Parser.strip(collection), rawContent);
+		Parser.parse(collection, this);
 	}
 	
 	/**
-	 * Converts a given Collection in text notation into a Collection.
+	 * Converts a given Collection in text notation into a Collection.<br>
+	 * Gzip compressed files are detected and decompressed automatically.
 	 * @param file A file containing the collection in text notation.
 	 * @throws InvalidSyntaxException If the String does not contain a Collection or if it contains an invalid key (or two equal keys).
 	 * @throws IOException If it is not possible to read the file.
 	 */
 	public Collection(File file) throws IOException {
-		BufferedReader r = new BufferedReader(new FileReader(file));
-		String t = "";
-		for(String l; (l = r.readLine()) != null; t += l);
-		Parser.fillRaw(Parser.strip(t), rawContent);
+		try(InputStream in = new FileInputStream(file)) {
+			Parser.parse(Parser.read(in), this);
+		}
+	}
+	
+	/**
+	 * Converts a given Collection in text notation into a Collection.<br>
+	 * Gzip compressed streams are detected and decompressed automatically.
+	 * @param in A stream containing the collection in text notation (it will not be closed).
+	 * @see #Collection(File)
+	 * @see #writeCompressed(OutputStream, int, int)
+	 * @throws InvalidSyntaxException If the stream does not contain a Collection or if it contains an invalid key (or two equal keys).
+	 * @throws IOException If it is not possible to read the stream.
+	 */
+	public Collection(InputStream in) throws IOException {
+		Parser.parse(Parser.read(in), this);
 	}
 	
-	private final HashMap<String, String> rawContent = new HashMap<>();
-	private final HashMap<String, Object[]> content = new HashMap<>();
+	final HashMap<String, RawItemSet> rawContent = new HashMap<>();
+	final HashMap<String, Object[]> content = new HashMap<>();
+	
+	private boolean recycling;
+	private ArrayList<RawItemSet> spareItemSets;
+	private ArrayList<Collection> children, spareCollections;
 	
 	/**
-	 * Returns an empty array if there is no item set with that key.
+	 * Lets this Collection keep (or stop keeping) its parsed item sets and nested Collections when being reset, so they can be reused by the next {@link ParserContext#parseInto(Collection, CharSequence, boolean)}.
+	 * @param recycle Whether the parsed item sets and nested Collections are supposed to be kept.
+	 */
+	void recycle(boolean recycle) {
+		if(!recycle) {
+			recycling = false;
+			spareItemSets = null;
+			children = spareCollections = null;
+			return;
+		} else if(recycling) return;
+		recycling = true;
+		spareItemSets = new ArrayList<>();
+		children = new ArrayList<>();
+		spareCollections = new ArrayList<>();
+	}
+	
+	/**
+	 * @param source The text notation the items are part of.
+	 * @return A new (or reused) empty item set.
+	 */
+	RawItemSet itemSet(String source) {
+		if(!recycling || spareItemSets.isEmpty()) return new RawItemSet(source);
+		RawItemSet r = spareItemSets.remove(spareItemSets.size()-1);
+		r.clear(source);
+		return r;
+	}
+	
+	/**
+	 * @return A new (or reused) empty Collection which is supposed to be nested in this Collection.
+	 */
+	Collection child() {
+		if(!recycling) return new Collection();
+		Collection c = spareCollections.isEmpty() ? new Collection() : spareCollections.remove(spareCollections.size()-1);
+		c.recycle(true);
+		children.add(c);
+		return c;
+	}
+	
+	/**
+	 * Removes every item set and stops tracking changes, so that the Collection can be reused.<br>
+	 * If the Collection has been filled by {@link ParserContext#parseInto(Collection, CharSequence, boolean)} with recycling enabled, its nested Collections are reset as well and will be reused by the next call, so they must not be used anymore.
+	 * @return This Collection.
+	 * @see ParserContext#parseInto(Collection, CharSequence, boolean)
+	 */
+	public Collection reset() {
+		if(recycling) {
+			spareItemSets.addAll(rawContent.values());
+			for(Collection c : children) {
+				c.reset();
+				spareCollections.add(c);
+			}
+			children.clear();
+		}
+		for(SpilledItemSet sp : spilled.values()) sp.close();
+		rawContent.clear();
+		content.clear();
+		spilled.clear();
+		fingerprints.clear();
+		stale();
+		changes = null;
+		if(touched != null) touched.clear();
+		return this;
+	}
+	
+	final HashMap<String, SpilledItemSet> spilled = new HashMap<>();
+	
+	private static int spillThreshold = Integer.MAX_VALUE;
+	private static File spillDirectory;
+	
+	/**
+	 * @return The minimum amount of items of an item set to be stored outside of the heap.
+	 * @see #setSpillThreshold(int)
+	 */
+	public static int getSpillThreshold() {
+		return spillThreshold;
+	}
+	
+	/**
+	 * Item sets with at least the given amount of items will be stored outside of the heap (in direct memory or in a temporary memory-mapped file) in a compact encoding when they are interpreted, put or appended to.<br>
+	 * Such item sets are decoded on request, so {@link #asObjects(String)} returns a new array every time. {@link #get(String, int)}, {@link #iterator(String)}, the primitive accessors (like {@link #asInts(String)}) and the writers do not decode the whole item set into objects.<br>
+	 * Item sets containing nested Collections are always kept on the heap, so that changes of the nested Collections are not lost.<br>
+	 * By default, no item set is stored outside of the heap.
+	 * @param items The minimum amount of items.
+	 * @throws IllegalArgumentException If the amount is smaller than 1.
+	 * @see #setSpillDirectory(File)
+	 */
+	public static void setSpillThreshold(int items) {
+		if(items < 1) throw new IllegalArgumentException("The spill threshold has to be at least 1.");
+		spillThreshold = items;
+	}
+	
+	/**
+	 * @return The directory of the temporary files of item sets stored outside of the heap, or {@code null} if direct memory is used.
+	 * @see #setSpillDirectory(File)
+	 */
+	public static File getSpillDirectory() {
+		return spillDirectory;
+	}
+	
+	/**
+	 * Item sets stored outside of the heap will be kept in temporary memory-mapped files inside the given directory.
+	 * @param directory The directory, or {@code null} to use direct memory (default).
+	 * @see #setSpillThreshold(int)
+	 */
+	public static void setSpillDirectory(File directory) {
+		spillDirectory = directory;
+	}
+	
+	/**
+	 * Encodes the given items outside of the heap unless they contain a nested Collection. (The item set is not added to this Collection.)
+	 * @param key The key of the item set.
+	 * @param values The items.
+	 * @return The item set, or {@code null} if the items contain a nested Collection.
+	 * @throws InvalidSyntaxException If the data type of an item is invalid.
+	 * @throws InvalidObjectException If an object cannot be translated or the item set exceeds 2 GB.
+	 */
+	private static SpilledItemSet spill(String key, Object[] values) {
+		for(Object o : values) {
+			if(o instanceof Collection) return null;
+		}
+		SpilledItemSet sp = new SpilledItemSet(spillDirectory);
+		try {
+			for(Object o : values) sp.add(o, key);
+		} catch(RuntimeException e) {
+			sp.close();
+			throw e;
+		} return sp;
+	}
+	
+	/**
+	 * Returns the item set stored outside of the heap. Item sets which have not been interpreted yet and reach the spill threshold are interpreted item by item and stored outside of the heap first (unless they contain a nested Collection).
+	 * @param key The key of the item set.
+	 * @return The item set, or {@code null} if it is not stored outside of the heap.
+	 * @see #setSpillThreshold(int)
+	 */
+	private SpilledItemSet spilled(String key) {
+		SpilledItemSet sp = spilled.get(key);
+		if(sp != null) return sp;
+		RawItemSet raw = rawContent.get(key);
+		if(raw == null || raw.size() < spillThreshold) return null;
+		for(int i = 0; i<raw.size(); i++) {
+			if(raw.nested(i) != null) return null;
+		}
+		long t = System.nanoTime();
+		sp = new SpilledItemSet(spillDirectory);
+		try {
+			for(int i = 0; i<raw.size(); i++) {
+				Object o = interpret(raw.item(i), key, i);
+				if(o instanceof Collection) {
+					sp.close();
+					return null;
+				} sp.add(o, key);
+			}
+		} catch(RuntimeException e) {
+			sp.close();
+			throw e;
+		}
+		spilled.put(key, sp);
+		materializationTime += System.nanoTime()-t;
+		materializations++;
+		rawContent.remove(key);
+		if(recycling) spareItemSets.add(raw);
+		return sp;
+	}
+	
+	/**
+	 * Returns an empty array if there is no item set with that key.<br>
+	 * Item sets stored outside of the heap are decoded into a new array every time.
 	 * @param key The key of the item set.
 	 * @return The item set as Object array.
 	 * @see #firstObject(String)
+	 * @see #get(String, int)
 	 * @throws InvalidSyntaxException If the item set contains an invalid data type.
 	 * @throws InvalidObjectException If the class of an object does not exist or the object could not be interpreted.
 	 */
 	public Object[] asObjects(String key) {
+		Object[] r = objects(key);
+		touch(key);
+		return r;
+	}
+	
+	/**
+	 * Same as {@link #asObjects(String)}, but does not count as a request for {@link #compact()}.
+	 * @param key The key of the item set.
+	 * @return The item set as Object array.
+	 * @throws InvalidSyntaxException If the item set contains an invalid data type.
+	 * @throws InvalidObjectException If the class of an object does not exist or the object could not be interpreted.
+	 */
+	private Object[] objects(String key) {
 		if(has(key)) {
 			if(content.containsKey(key)) return content.get(key);
-			String[] c = Parser.split(rawContent.get(key), ',');
-			Object[] r = new Object[c.length];
-			int numType;
-			for(int i = 0; i<c.length; i++) {
-				c[i] = c[i].trim();
-				// String
-				if(c[i].startsWith("\"") && c[i].endsWith("\"")) {
-					r[i] = Parser.decodeString(c[i].substring(1, c[i].length()-1));
-				}
-				// Number
-				else if((numType = Parser.getNumType(c[i])) > -1) {
-					// Integer
-					if(numType == Parser.INTEGER) r[i] = Integer.parseInt(c[i]);
-					// Long
-					else if(numType == Parser.LONG) r[i] = Long.parseLong(c[i]);
-					// Double
-					else if(numType == Parser.DOUBLE) r[i] = Double.parseDouble(c[i]);
-					// BigDecimal
-					else r[i] = new BigDecimal(c[i]);
-				}
-				// Boolean
-				else if(c[i].equalsIgnoreCase("true") || c[i].equalsIgnoreCase("false")) {
-					r[i] = Boolean.parseBoolean(c[i]);
-				}
-				// Serializable
-				else if(c[i].startsWith("i[\"") && c[i].endsWith("\"]")) {
-					try {
-						r[i] = Parser.toObject(Parser.decodeString(c[i].substring(3, c[i].length()-2)));
-					} catch(ClassNotFoundException e) {
-						throw new InvalidObjectException("Class not found (key: \"" + key + "\").");
-					} catch(IOException e) {
-						throw new InvalidObjectException("Cannot interpretate object (key: \"" + key + "\").");
-					}
-				} else {
-					// Date
-					try {
-						r[i] = dateFormat.parse(c[i]);
-					} catch(java.text.ParseException e1) {
-						// Collection
-						try {
-							r[i] = new Collection(c[i]);
-						} catch(InvalidSyntaxException e2) {}
-					}
-				}
-				if(r[i] == null) throw new InvalidSyntaxException("Unknown type: " + c[i] + " cannot be interpreted (key: \"" + key + "\", index: " + i + ").");
+			SpilledItemSet sp = spilled(key);
+			if(sp != null) return sp.toArray(key);
+			long t = System.nanoTime();
+			RawItemSet raw = rawContent.get(key);
+			Object[] r = new Object[raw.size()];
+			for(int i = 0; i<r.length; i++) {
+				r[i] = raw.nested(i) != null ? raw.nested(i) : interpret(raw.item(i), key, i);
 			} content.put(key, r);
 			rawContent.remove(key);
+			if(recycling) spareItemSets.add(raw);
+			materializationTime += System.nanoTime()-t;
+			materializations++;
 			return r;
 		} else return new Object[0];
 	}
 	
+	/**
+	 * Interprets a single item in text notation.
+	 * @param c The item in text notation.
+	 * @param key The key of the item set (used for error messages).
+	 * @param i The index of the item (used for error messages).
+	 * @return The item as object.
+	 * @throws InvalidSyntaxException If the item is of an invalid data type.
+	 * @throws InvalidObjectException If the class of an object does not exist or the object could not be interpreted.
+	 */
+	static Object interpret(String c, String key, int i) {
+		Object r = null;
+		int numType;
+		// String
+		if(c.startsWith("\"") && c.endsWith("\"")) {
+			r = Parser.decodeString(c.substring(1, c.length()-1));
+		}
+		// Number
+		else if((numType = Parser.getNumType(c)) > -1) {
+			// Integer
+			if(numType == Parser.INTEGER) r = Integer.parseInt(c);
+			// Long
+			else if(numType == Parser.LONG) r = Long.parseLong(c);
+			// Double
+			else if(numType == Parser.DOUBLE) r = Double.parseDouble(c);
+			// BigDecimal
+			else r = new BigDecimal(c);
+		}
+		// Boolean
+		else if(c.equalsIgnoreCase("true") || c.equalsIgnoreCase("false")) {
+			r = Boolean.parseBoolean(c);
+		}
+		// Serializable
+		else if(c.startsWith("i[\"") && c.endsWith("\"]")) {
+			try {
+				r = Parser.toObject(Parser.decodeString(c.substring(3, c.length()-2)));
+			} catch(ClassNotFoundException e) {
+				throw new InvalidObjectException("Class not found (key: \"" + key + "\").");
+			} catch(IOException e) {
+				throw new InvalidObjectException("Cannot interpretate object (key: \"" + key + "\").");
+			}
+		} else {
+			// Date
+			try {
+				r = dateFormat.parse(c);
+			} catch(java.text.ParseException e1) {
+				// Collection (Collections which are not surrounded by other text have already been parsed)
+				if(c.indexOf('<') > -1) {
+					try {
+						r = new Collection(c);
+					} catch(InvalidSyntaxException e2) {}
+				}
+			}
+		}
+		if(r == null) throw new InvalidSyntaxException("Unknown type: " + c + " cannot be interpreted (key: \"" + key + "\", index: " + i + ").");
+		return r;
+	}
+	
 	/**
 	 * Returns an empty array if there is no item set with that key.
 	 * @param key The key of the item set.
@@ -154,6 +389,14 @@ public class Collection {
 	 * @throws java.lang.ClassCastException If not every item of this set can be casted to an integer.
 	 */
 	public int[] asInts(String key) {
+		SpilledItemSet sp = spilled(key);
+		if(sp != null) {
+			int[] s = new int[sp.size()];
+			for(int i = 0; i<s.length; i++) {
+				byte t = sp.type(i);
+				s[i] = t == SpilledItemSet.INTEGER || t == SpilledItemSet.LONG ? (int) sp.integral(i) : t == SpilledItemSet.DOUBLE ? (int) sp.real(i) : ((BigDecimal) sp.get(i, key)).intValue();
+			} return s;
+		}
 		Object[] o = asObjects(key);
 		int[] s = new int[o.length];
 		for(int i = 0; i<s.length; i++) s[i] = o[i] instanceof Long ? (int) ((long) o[i]) : o[i] instanceof Double ? (int) ((double) o[i]) : o[i] instanceof BigDecimal ? ((BigDecimal) o[i]).intValue() : (int) o[i];
@@ -171,6 +414,14 @@ public class Collection {
 	 * @throws java.lang.ClassCastException If not every item of this set can be casted to a long.
 	 */
 	public long[] asLongs(String key) {
+		SpilledItemSet sp = spilled(key);
+		if(sp != null) {
+			long[] s = new long[sp.size()];
+			for(int i = 0; i<s.length; i++) {
+				byte t = sp.type(i);
+				s[i] = t == SpilledItemSet.INTEGER || t == SpilledItemSet.LONG ? sp.integral(i) : t == SpilledItemSet.DOUBLE ? (long) sp.real(i) : ((BigDecimal) sp.get(i, key)).longValue();
+			} return s;
+		}
 		Object[] o = asObjects(key);
 		long[] s = new long[o.length];
 		for(int i = 0; i<s.length; i++) s[i] = o[i] instanceof Integer ? (long) ((int) o[i]) : o[i] instanceof Double ? (long) ((double) o[i]) : o[i] instanceof BigDecimal ? ((BigDecimal) o[i]).longValue() : (long) o[i];
@@ -188,6 +439,14 @@ public class Collection {
 	 * @throws java.lang.ClassCastException If not every item of this set can be casted to a double.
 	 */
 	public double[] asDoubles(String key) {
+		SpilledItemSet sp = spilled(key);
+		if(sp != null) {
+			double[] s = new double[sp.size()];
+			for(int i = 0; i<s.length; i++) {
+				byte t = sp.type(i);
+				s[i] = t == SpilledItemSet.INTEGER || t == SpilledItemSet.LONG ? (double) sp.integral(i) : t == SpilledItemSet.DOUBLE ? sp.real(i) : ((BigDecimal) sp.get(i, key)).doubleValue();
+			} return s;
+		}
 		Object[] o = asObjects(key);
 		double[] s = new double[o.length];
 		for(int i = 0; i<s.length; i++) s[i] = o[i] instanceof BigDecimal ? ((BigDecimal) o[i]).doubleValue() : o[i] instanceof Integer ? (double) ((int) o[i]) : o[i] instanceof Long ? (double) ((long) o[i]) : (double) o[i];
@@ -220,6 +479,12 @@ public class Collection {
 	 * @throws java.lang.ClassCastException If not every item of this set can be casted to a boolean.
 	 */
 	public boolean[] asBooleans(String key) {
+		SpilledItemSet sp = spilled(key);
+		if(sp != null) {
+			boolean[] s = new boolean[sp.size()];
+			for(int i = 0; i<s.length; i++) s[i] = (boolean) sp.get(i, key);
+			return s;
+		}
 		Object[] o = asObjects(key);
 		boolean[] s = new boolean[o.length];
 		for(int i = 0; i<s.length; i++) s[i] = (boolean) o[i];
@@ -268,7 +533,29 @@ public class Collection {
 	 * @throws java.lang.ArrayIndexOutOfBoundsException If there is no item set with that key.
 	 */
 	public Object firstObject(String key) {
-		return asObjects(key)[0];
+		return first(key);
+	}
+	
+	/**
+	 * @param key The key of the item set.
+	 * @return The first item of the item set (without decoding item sets stored outside of the heap).
+	 * @throws java.lang.ArrayIndexOutOfBoundsException If there is no item set with that key.
+	 */
+	private Object first(String key) {
+		Object r = firstItem(key);
+		touch(key);
+		return r;
+	}
+	
+	/**
+	 * Same as {@link #first(String)}, but does not count as a request for {@link #compact()}.
+	 * @param key The key of the item set.
+	 * @return The first item of the item set.
+	 * @throws java.lang.ArrayIndexOutOfBoundsException If there is no item set with that key.
+	 */
+	private Object firstItem(String key) {
+		SpilledItemSet sp = spilled(key);
+		return sp != null ? sp.get(0, key) : objects(key)[0];
 	}
 	
 	/**
@@ -280,7 +567,7 @@ public class Collection {
 	 * @throws java.lang.ClassCastException If the first item cannot be casted to a String.
 	 */
 	public String firstString(String key) {
-		return has(key) ? (String) asObjects(key)[0] : null;
+		return has(key) ? (String) first(key) : null;
 	}
 	
 	/**
@@ -292,7 +579,7 @@ public class Collection {
 	 * @throws java.lang.ArrayIndexOutOfBoundsException If there is no item set with that key.
 	 */
 	public int firstInt(String key) {
-		return (int) asObjects(key)[0];
+		return (int) first(key);
 	}
 	
 	/**
@@ -304,7 +591,7 @@ public class Collection {
 	 * @throws java.lang.ArrayIndexOutOfBoundsException If there is no item set with that key.
 	 */
 	public long firstLong(String key) {
-		return (long) asObjects(key)[0];
+		return (long) first(key);
 	}
 	
 	/**
@@ -316,7 +603,7 @@ public class Collection {
 	 * @throws java.lang.ArrayIndexOutOfBoundsException If there is no item set with that key.
 	 */
 	public double firstDouble(String key) {
-		return (double) asObjects(key)[0];
+		return (double) first(key);
 	}
 	
 	/**
@@ -328,7 +615,7 @@ public class Collection {
 	 * @throws java.lang.ClassCastException If the first item cannot be casted to a BigDecimal.
 	 */
 	public BigDecimal firstBigDecimal(String key) {
-		return has(key) ? (BigDecimal) asObjects(key)[0] : null;
+		return has(key) ? (BigDecimal) first(key) : null;
 	}
 	
 	/**
@@ -340,7 +627,7 @@ public class Collection {
 	 * @throws java.lang.ArrayIndexOutOfBoundsException If there is no item set with that key.
 	 */
 	public boolean firstBoolean(String key) {
-		return (boolean) asObjects(key)[0];
+		return (boolean) first(key);
 	}
 	
 	/**
@@ -352,7 +639,7 @@ public class Collection {
 	 * @throws java.lang.ClassCastException If the first item cannot be casted to a Date.
 	 */
 	public Date firstDate(String key) {
-		return has(key) ? (Date) asObjects(key)[0] : null;
+		return has(key) ? (Date) first(key) : null;
 	}
 	
 	/**
@@ -364,7 +651,7 @@ public class Collection {
 	 * @throws java.lang.ClassCastException If the first item cannot be casted to a Collection.
 	 */
 	public Collection firstCollection(String key) {
-		return has(key) ? (Collection) asObjects(key)[0] : null;
+		return has(key) ? (Collection) first(key) : null;
 	}
 	
 	/**
@@ -372,7 +659,120 @@ public class Collection {
 	 * @return Whether the Collection contains an item set with the given key.
 	 */
 	public boolean has(String key) {
-		return rawContent.containsKey(key) || content.containsKey(key);
+		return rawContent.containsKey(key) || content.containsKey(key) || spilled.containsKey(key);
+	}
+	
+	/**
+	 * Returns 0 if there is no item set with that key. The item set will not be interpreted.
+	 * @param key The key of the item set.
+	 * @return The amount of items of the item set.
+	 */
+	public int size(String key) {
+		if(content.containsKey(key)) return content.get(key).length;
+		else if(rawContent.containsKey(key)) return rawContent.get(key).size();
+		else if(spilled.containsKey(key)) return spilled.get(key).size();
+		else return 0;
+	}
+	
+	/**
+	 * Returns a single item without interpreting (or decoding) the other items of the item set.<br>
+	 * If the item set has not been interpreted yet, the item will be interpreted every time.
+	 * @param key The key of the item set.
+	 * @param index The index of the item.
+	 * @return The item.
+	 * @see #iterator(String)
+	 * @see #asObjects(String)
+	 * @throws InvalidSyntaxException If the item is of an invalid data type.
+	 * @throws InvalidObjectException If the class of an object does not exist or the object could not be interpreted.
+	 * @throws java.lang.ArrayIndexOutOfBoundsException If there is no item set with that key or if the index is out of bounds.
+	 */
+	public Object get(String key, int index) {
+		if(index < 0 || index >= size(key)) throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds (key: \"" + key + "\").");
+		if(content.containsKey(key)) {
+			touch(key);
+			return content.get(key)[index];
+		} else if(spilled.containsKey(key)) return spilled.get(key).get(index, key);
+		RawItemSet raw = rawContent.get(key);
+		return raw.nested(index) != null ? raw.nested(index) : interpret(raw.item(index), key, index);
+	}
+	
+	/**
+	 * Iterates over the items of the item set with the given key without interpreting (or decoding) all of them at once.<br>
+	 * The iterator is empty if there is no item set with that key.
+	 * @param key The key of the item set.
+	 * @return An iterator over the items.
+	 * @see #get(String, int)
+	 */
+	public Iterator<Object> iterator(String key) {
+		return new Iterator<Object>() {
+			private int i = 0;
+			@Override
+			public boolean hasNext() {
+				return i < size(key);
+			}
+			@Override
+			public Object next() {
+				if(!hasNext()) throw new NoSuchElementException();
+				return get(key, i++);
+			}
+		};
+	}
+	
+	/**
+	 * Returns a single nested Collection without interpreting the other items of the item set.
+	 * @param key The key of the item set.
+	 * @param index The index of the item.
+	 * @return The nested Collection, or {@code null} if the item is not a Collection.
+	 * @throws InvalidSyntaxException If the item is of an invalid data type.
+	 * @throws InvalidObjectException If the class of an object does not exist or the object could not be interpreted.
+	 */
+	private Collection element(String key, int index) {
+		Object o;
+		if(content.containsKey(key)) o = content.get(key)[index];
+		else if(spilled.containsKey(key)) o = spilled.get(key).get(index, key);
+		else if(rawContent.get(key).nested(index) != null) return rawContent.get(key).nested(index);
+		else o = interpret(rawContent.get(key).item(index), key, index);
+		return o instanceof Collection ? (Collection) o : null;
+	}
+	
+	/**
+	 * Creates a hash index over the nested Collections of the item set with the given key, e. g.:<br>
+	 * {@code collection.asCollections("users")[collection.index("users", "id").get("neo")]}<br>
+	 * Only the inner item set with the given inner key is interpreted, the item set itself is not. Items which are not Collections or do not contain the inner key are skipped. If multiple Collections contain equal values, the first one is indexed.<br>
+	 * The index is not updated when the Collection changes.
+	 * @param key The key of the item set.
+	 * @param innerKey The key of the inner item set of every nested Collection.
+	 * @return A map from the first item of every inner item set to the index of its Collection within the item set.
+	 * @see #filter(String, String, Predicate)
+	 * @throws InvalidSyntaxException If the item set or an inner item set contains an invalid data type.
+	 * @throws InvalidObjectException If the class of an object does not exist or the object could not be interpreted.
+	 */
+	public HashMap<Object, Integer> index(String key, String innerKey) {
+		HashMap<Object, Integer> r = new HashMap<>();
+		for(int i = 0, s = size(key); i<s; i++) {
+			Collection c = element(key, i);
+			if(c != null && c.has(innerKey)) r.putIfAbsent(c.firstItem(innerKey), i);
+		} return r;
+	}
+	
+	/**
+	 * Returns every nested Collection of the item set with the given key whose first item of the inner item set matches the predicate, e. g.:<br>
+	 * {@code collection.filter("users", "age", age -> (int) age >= 18)}<br>
+	 * Only the inner item set with the given inner key is interpreted, the item set itself is not. Items which are not Collections or do not contain the inner key are skipped.
+	 * @param key The key of the item set.
+	 * @param innerKey The key of the inner item set of every nested Collection.
+	 * @param predicate The predicate which is applied on the first item of every inner item set.
+	 * @return The matching Collections (in order).
+	 * @see #index(String, String)
+	 * @throws InvalidSyntaxException If the item set or an inner item set contains an invalid data type.
+	 * @throws InvalidObjectException If the class of an object does not exist or the object could not be interpreted.
+	 */
+	public Collection[] filter(String key, String innerKey, Predicate<Object> predicate) {
+		ArrayList<Collection> r = new ArrayList<>();
+		for(int i = 0, s = size(key); i<s; i++) {
+			Collection c = element(key, i);
+			if(c != null && c.has(innerKey) && predicate.test(c.firstItem(innerKey))) r.add(c);
+		} return r.toArray(new Collection[0]);
 	}
 	
 	/**
@@ -380,8 +780,9 @@ public class Collection {
 	 */
 	public String[] keys() {
 		Set<String> keySet1 = rawContent.keySet(),
-				keySet2 = content.keySet();
-		String[] keys = new String[keySet1.size()+keySet2.size()];
+				keySet2 = content.keySet(),
+				keySet3 = spilled.keySet();
+		String[] keys = new String[keySet1.size()+keySet2.size()+keySet3.size()];
 		int i = 0;
 		for(String s : keySet1) {
 			keys[i] = s;
@@ -390,6 +791,10 @@ public class Collection {
 		for(String s : keySet2) {
 			keys[i] = s;
 			i++;
+		}
+		for(String s : keySet3) {
+			keys[i] = s;
+			i++;
 		} return keys;
 	}
 	
@@ -411,8 +816,17 @@ public class Collection {
 			if(v == null) throw new NullPointerException("An item value cannot be null.");;
 		}
 		if(!Parser.isValidKey(key)) throw new InvalidSyntaxException("Invalid key: \"" + key + "\".");
+		// The items are encoded first, so that the Collection stays unchanged if they cannot be encoded
+		SpilledItemSet n = values.length >= spillThreshold ? spill(key, values) : null;
 		rawContent.remove(key);
-		content.put(key, values);
+		SpilledItemSet sp = spilled.remove(key);
+		if(sp != null) sp.close();
+		if(n != null) {
+			content.remove(key);
+			spilled.put(key, n);
+		} else content.put(key, values);
+		changed(key).replaced = true;
+		invalidate(key);
 		return this;
 	}
 	
@@ -449,14 +863,37 @@ public class Collection {
 	 */
 	public Collection append(String key, Object value) {
 		if(value == null) throw new NullPointerException("An item value cannot be null.");
-		if(rawContent.containsKey(key)) asObjects(key);
+		if(rawContent.containsKey(key) && spilled(key) == null) objects(key);
 		else if(!Parser.isValidKey(key)) throw new InvalidSyntaxException("Invalid key: \"" + key + "\".");
-		if(!content.containsKey(key)) content.put(key, new Object[] {value});
+		SpilledItemSet sp = spilled.get(key);
+		if(sp != null && value instanceof Collection) {
+			// Item sets containing nested Collections are kept on the heap
+			content.put(key, sp.toArray(key));
+			spilled.remove(key);
+			sp.close();
+			sp = null;
+		}
+		if(sp != null) sp.add(value, key);
+		else if(!content.containsKey(key)) content.put(key, new Object[] {value});
 		else {
 			Object[] o = content.get(key),
 					n = new Object[o.length+1];
 			for(int i = 0; i<o.length; i++) n[i] = o[i];
 			n[n.length-1] = value;
+			SpilledItemSet s = n.length >= spillThreshold ? spill(key, n) : null;
+			if(s != null) {
+				content.remove(key);
+				spilled.put(key, s);
+			} else content.put(key, n);
+		}
+		Change c = changed(key);
+		if(!c.replaced) c.appended.add(value);
+		Fingerprint f = fingerprints.get(key);
+		if(f == null) invalidate(key);
+		else {
+			f.append(value, key);
+			if(value instanceof Collection) ((Collection) value).nestedIn(this);
+			stale();
 		} return this;
 	}
 	
@@ -470,8 +907,12 @@ public class Collection {
 	 * @see #remove(String, int)
 	 */
 	public Collection remove(String key) {
+		if(has(key)) changed(key).replaced = true;
 		rawContent.remove(key);
 		content.remove(key);
+		SpilledItemSet sp = spilled.remove(key);
+		if(sp != null) sp.close();
+		invalidate(key);
 		return this;
 	}
 	
@@ -484,8 +925,16 @@ public class Collection {
 	 * @throws java.lang.ArrayIndexOutOfBoundsException If the index is larger than the amount of items within the item set.
 	 */
 	public Collection remove(String key, int index) {
-		if(rawContent.containsKey(key)) asObjects(key);
-		if(content.containsKey(key)) {
+		if(rawContent.containsKey(key) && spilled(key) == null) objects(key);
+		if(spilled.containsKey(key)) {
+			SpilledItemSet sp = spilled.get(key);
+			if(index < 0 || index >= sp.size()) throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds (key: \"" + key + "\").");
+			sp.remove(index);
+			if(sp.size() == 0) {
+				sp.close();
+				spilled.remove(key);
+			}
+		} else if(content.containsKey(key)) {
 			Object[] o = content.get(key),
 					n = new Object[o.length-1];
 			if(n.length > 0) {
@@ -493,7 +942,439 @@ public class Collection {
 					if(i != index) n[i > index ? i-1 : i] = o[i];
 				} content.put(key, n);
 			} else content.remove(key);
-		} return this;
+		} else return this;
+		Change c = changed(key);
+		if(!c.appended.isEmpty()) c.replaced = true;
+		else if(!c.replaced) c.removed.add(index);
+		invalidate(key);
+		return this;
+	}
+	
+	/**
+	 * The changes of a single item set since the last checkpoint.<br>
+	 * Either the item set has been replaced (or removed) as a whole, or some items have been removed (in the given order) and appended afterwards.
+	 * @see Collection#checkpoint()
+	 */
+	private static class Change {
+		boolean replaced;
+		final ArrayList<Integer> removed = new ArrayList<>();
+		final ArrayList<Object> appended = new ArrayList<>();
+		Change(boolean replaced) {
+			this.replaced = replaced;
+		}
+	}
+	
+	private LinkedHashMap<String, Change> changes;
+	private final static Change untracked = new Change(true);
+	
+	/**
+	 * @param key The key of the changed item set.
+	 * @return The changes of the item set (a dummy if this Collection is not tracking its changes).
+	 */
+	private Change changed(String key) {
+		if(changes == null) return untracked;
+		Change c = changes.get(key);
+		if(c == null) changes.put(key, c = new Change(false));
+		return c;
+	}
+	
+	/**
+	 * Starts tracking the changes of this Collection or forgets every change which has been tracked until now.<br>
+	 * Only changes made by {@link #put(String, Object[])}, {@link #put(String, Object)}, {@link #append(String, Object)}, {@link #remove(String)} and {@link #remove(String, int)} of this Collection are tracked. (Changes of nested Collections are not.)
+	 * @return This Collection.
+	 * @see #delta()
+	 * @see #dirtyKeys()
+	 * @see #stopTracking()
+	 */
+	public Collection checkpoint() {
+		changes = new LinkedHashMap<>();
+		return this;
+	}
+	
+	/**
+	 * Stops tracking the changes of this Collection.
+	 * @return This Collection.
+	 * @see #checkpoint()
+	 */
+	public Collection stopTracking() {
+		changes = null;
+		return this;
+	}
+	
+	/**
+	 * @return Whether this Collection is tracking its changes.
+	 * @see #checkpoint()
+	 */
+	public boolean isTracking() {
+		return changes != null;
+	}
+	
+	/**
+	 * Returns an empty array if this Collection is not tracking its changes.
+	 * @return The keys of all item sets which have been changed since the last checkpoint.
+	 * @see #checkpoint()
+	 */
+	public String[] dirtyKeys() {
+		return changes == null ? new String[0] : changes.keySet().toArray(new String[0]);
+	}
+	
+	/**
+	 * Creates a delta Collection containing every change since the last checkpoint. It might look like this:<br>
+	 * {@code <delete: "a"; put: <b: 1, 2;>; remove: <c: 0, 3;>; append: <c: "x";>;>}<br>
+	 * Item sets which have been replaced are contained as a whole, all other item sets only contain the indices of the removed items and the appended items.
+	 * @return The delta Collection (empty if this Collection is not tracking its changes).
+	 * @see #checkpoint()
+	 * @see #applyDelta(Collection)
+	 */
+	public Collection delta() {
+		Collection d = new Collection();
+		if(changes == null) return d;
+		Collection put = new Collection(),
+				remove = new Collection(),
+				append = new Collection();
+		for(String k : changes.keySet()) {
+			Change c = changes.get(k);
+			if(c.replaced) {
+				if(has(k)) put.put(k, objects(k).clone());
+				else d.append("delete", k);
+			} else {
+				if(!c.removed.isEmpty()) remove.put(k, c.removed.toArray());
+				if(!c.appended.isEmpty()) append.put(k, c.appended.toArray());
+			}
+		}
+		if(put.keys().length > 0) d.put("put", put);
+		if(remove.keys().length > 0) d.put("remove", remove);
+		if(append.keys().length > 0) d.put("append", append);
+		return d;
+	}
+	
+	/**
+	 * Applies a delta Collection (in text notation) to this Collection.
+	 * @param delta The delta Collection in text notation.
+	 * @return This Collection.
+	 * @see #applyDelta(Collection)
+	 * @throws InvalidSyntaxException If the String does not contain a Collection or if the delta contains an invalid key or data type.
+	 */
+	public Collection applyDelta(String delta) {
+		return applyDelta(new Collection(delta));
+	}
+	
+	/**
+	 * Applies a delta Collection created by {@link #delta()} to this Collection.<br>
+	 * The changes are applied like this: item sets are deleted, replaced, items are removed and finally items are appended. (If this Collection is tracking its changes, they will be tracked as well.)
+	 * @param delta The delta Collection.
+	 * @return This Collection.
+	 * @see #delta()
+	 * @throws InvalidSyntaxException If the delta contains an invalid key or data type.
+	 * @throws java.lang.ArrayIndexOutOfBoundsException If an item which is supposed to be removed does not exist.
+	 */
+	public Collection applyDelta(Collection delta) {
+		for(String k : delta.asStrings("delete")) remove(k);
+		Collection put = delta.firstCollection("put"),
+				remove = delta.firstCollection("remove"),
+				append = delta.firstCollection("append");
+		if(put != null) for(String k : put.keys()) put(k, put.asObjects(k).clone());
+		if(remove != null) for(String k : remove.keys()) {
+			for(int i : remove.asInts(k)) remove(k, i);
+		}
+		if(append != null) for(String k : append.keys()) {
+			for(Object o : append.asObjects(k)) append(k, o);
+		}
+		return this;
+	}
+	
+	private final HashMap<String, Fingerprint> fingerprints = new HashMap<>();
+	private long fingerprint;
+	private boolean fingerprinted;
+	private WeakHashMap<Collection, Boolean> parents;
+	
+	/**
+	 * Forgets the fingerprint of the item set with the given key.
+	 * @param key The key of the changed item set.
+	 */
+	private void invalidate(String key) {
+		fingerprints.remove(key);
+		stale();
+	}
+	
+	/**
+	 * Forgets the fingerprint of this Collection and of every Collection this one is nested in.
+	 */
+	private void stale() {
+		fingerprinted = false;
+		if(parents != null) for(Collection p : parents.keySet()) p.nestedChanged(this);
+	}
+	
+	/**
+	 * @param c A nested Collection which has been changed.
+	 */
+	private void nestedChanged(Collection c) {
+		boolean found = false;
+		for(Fingerprint f : fingerprints.values()) found |= f.stale(c);
+		// Collections which have already been marked have already notified their parents
+		if(found) stale();
+	}
+	
+	/**
+	 * Lets the given Collection be notified when this Collection is changed. (The given Collection is only referenced weakly.)
+	 * @param parent The Collection this Collection is nested in.
+	 */
+	private void nestedIn(Collection parent) {
+		if(parents == null) parents = new WeakHashMap<>();
+		parents.put(parent, Boolean.TRUE);
+	}
+	
+	/**
+	 * Returns a 64 bit hash of the content of this Collection. Collections which are equal in content have equal fingerprints (independent of the order of their keys and of whether their items have been interpreted yet).<br>
+	 * The fingerprint of every item set is cached until the item set is changed by this Collection. Changes of nested Collections only update the share of the changed Collections. Strings which have not been interpreted yet are hashed without being interpreted.<br>
+	 * <b>Please note:</b> Items which are changed within the arrays returned by {@link #asObjects(String)} are not noticed.
+	 * @return The fingerprint of this Collection.
+	 * @see #contentEquals(Collection)
+	 * @throws InvalidSyntaxException If an item set contains an invalid data type.
+	 * @throws InvalidObjectException If an object cannot be interpreted or translated.
+	 */
+	public long fingerprint() {
+		if(fingerprinted) return fingerprint;
+		long h = 0;
+		for(String k : keys()) {
+			Fingerprint f = fingerprints.get(k);
+			if(f == null) {
+				fingerprints.put(k, f = rawContent.containsKey(k) ? Fingerprint.of(rawContent.get(k), k) : spilled.containsKey(k) ? Fingerprint.of(spilled.get(k), k) : Fingerprint.of(content.get(k), k));
+				for(Collection c : f.nested()) c.nestedIn(this);
+			} h += Fingerprint.key(k, f.value());
+		}
+		fingerprint = Fingerprint.mix(h);
+		fingerprinted = true;
+		return fingerprint;
+	}
+	
+	/**
+	 * Compares the content of this Collection with the content of another Collection.<br>
+	 * Returns {@code false} immediately if the fingerprints are not equal. Item sets which have not been interpreted yet and whose text notation is equal are not interpreted.<br>
+	 * ({@link #equals(Object)} and {@link #hashCode()} are not overridden, since Collections are mutable.)
+	 * @param other The other Collection.
+	 * @return Whether both Collections contain the same keys and equal item sets.
+	 * @see #fingerprint()
+	 * @throws InvalidSyntaxException If an item set contains an invalid data type.
+	 * @throws InvalidObjectException If an object cannot be interpreted or translated.
+	 */
+	public boolean contentEquals(Collection other) {
+		if(this == other) return true;
+		if(other == null || fingerprint() != other.fingerprint()) return false;
+		String[] keys = keys();
+		if(keys.length != other.keys().length) return false;
+		for(String k : keys) {
+			if(!other.has(k)) return false;
+			RawItemSet a = rawContent.get(k),
+					b = other.rawContent.get(k);
+			if(a != null && b != null && a.size() == b.size()) {
+				boolean equal = true;
+				for(int i = 0; i<a.size() && equal; i++) equal = a.nested(i) == null && b.nested(i) == null ? a.textEquals(i, b, i) : a.nested(i) != null && b.nested(i) != null && a.nested(i).contentEquals(b.nested(i));
+				if(equal) continue;
+			}
+			Object[] o = objects(k),
+					p = other.objects(k);
+			if(o.length != p.length) return false;
+			for(int i = 0; i<o.length; i++) {
+				if(!itemEquals(o[i], p[i], k)) return false;
+			}
+		} return true;
+	}
+	
+	/**
+	 * @param a An interpreted item.
+	 * @param b Another interpreted item.
+	 * @param key The key of the item set (used for error messages).
+	 * @return Whether both items are equal in content.
+	 * @throws InvalidObjectException If an object cannot be translated.
+	 */
+	private static boolean itemEquals(Object a, Object b, String key) {
+		if(a instanceof Collection || b instanceof Collection) return a instanceof Collection && b instanceof Collection && ((Collection) a).contentEquals((Collection) b);
+		else if((a instanceof Integer || a instanceof Long) && (b instanceof Integer || b instanceof Long)) return ((Number) a).longValue() == ((Number) b).longValue();
+		else if(a.equals(b)) return true;
+		else if(a instanceof String || a instanceof Number || a instanceof Boolean || a instanceof Date || a.getClass() != b.getClass()) return false;
+		// Serializable objects do not have to override equals
+		try {
+			return Parser.toString((Serializable) a).equals(Parser.toString((Serializable) b));
+		} catch(IOException e) {
+			throw new InvalidObjectException("Object cannot be translated (key: \"" + key + "\").");
+		}
+	}
+	
+	/**
+	 * The states of an item set.
+	 * @see #state(String)
+	 */
+	public static final int RAW = 0,
+			MATERIALIZED = 1,
+			SPILLED = 2;
+	
+	private HashSet<String> touched;
+	private long materializationTime;
+	private int materializations;
+	
+	/**
+	 * Remembers that the item set with the given key has been requested, so that it will not be converted by the next {@link #compact()}.
+	 * @param key The key of the item set.
+	 */
+	private void touch(String key) {
+		if(!content.containsKey(key)) return;
+		if(touched == null) touched = new HashSet<>();
+		touched.add(key);
+	}
+	
+	/**
+	 * @param key The key of the item set.
+	 * @return Whether the item set has not been interpreted yet ({@link #RAW}), has been interpreted ({@link #MATERIALIZED}) or is stored outside of the heap ({@link #SPILLED}), or -1 if there is no item set with that key.
+	 * @see #dematerialize(String)
+	 */
+	public int state(String key) {
+		if(rawContent.containsKey(key)) return RAW;
+		else if(content.containsKey(key)) return MATERIALIZED;
+		else if(spilled.containsKey(key)) return SPILLED;
+		else return -1;
+	}
+	
+	/**
+	 * Estimates the heap memory of an item set which has not been interpreted yet (its share of the text notation and its nested Collections).<br>
+	 * <b>Please note:</b> The text notation is shared by every item set and nested Collection parsed from it, so it stays on the heap as long as any of them has not been interpreted.
+	 * @param key The key of the item set.
+	 * @return The estimated bytes, or 0 if the item set is not {@link #RAW}.
+	 * @see #contentBytes(String)
+	 * @see #estimateBytes()
+	 */
+	public long rawBytes(String key) {
+		return rawContent.containsKey(key) ? rawContent.get(key).bytes() : 0;
+	}
+	
+	/**
+	 * Estimates the heap memory of an interpreted item set (including nested Collections and deserialized objects).
+	 * @param key The key of the item set.
+	 * @return The estimated bytes, or 0 if the item set is not {@link #MATERIALIZED}.
+	 * @see #rawBytes(String)
+	 * @see #estimateBytes()
+	 */
+	public long contentBytes(String key) {
+		return content.containsKey(key) ? Footprint.of(content.get(key)) : 0;
+	}
+	
+	/**
+	 * @param key The key of the item set.
+	 * @return The bytes used outside of the heap, or 0 if the item set is not {@link #SPILLED}.
+	 * @see #setSpillThreshold(int)
+	 */
+	public long spilledBytes(String key) {
+		return spilled.containsKey(key) ? spilled.get(key).bytes() : 0;
+	}
+	
+	/**
+	 * Estimates the heap memory of this Collection (including every item set and nested Collection, excluding item sets stored outside of the heap).
+	 * @return The estimated bytes.
+	 * @see #rawBytes(String)
+	 * @see #contentBytes(String)
+	 */
+	public long estimateBytes() {
+		long b = Footprint.OBJECT + 3*Footprint.MAP;
+		for(String k : keys()) b += Footprint.MAP_ENTRY + rawBytes(k) + contentBytes(k);
+		return b;
+	}
+	
+	/**
+	 * @return The total time (in nanoseconds) this Collection has spent on interpreting item sets (not including nested Collections).
+	 * @see #materializations()
+	 */
+	public long materializationTime() {
+		return materializationTime;
+	}
+	
+	/**
+	 * @return The amount of item sets this Collection has interpreted (not including nested Collections).
+	 * @see #materializationTime()
+	 */
+	public int materializations() {
+		return materializations;
+	}
+	
+	/**
+	 * Converts an interpreted item set back into text notation, which usually needs less memory. It will be interpreted again when it is requested.<br>
+	 * Item sets are only converted if every item would be interpreted as an equal item of the same type again. (E. g. longs within the range of integers, BigDecimals which fit into doubles or dates with milliseconds would not.)<br>
+	 * Empty item sets and item sets containing nested Collections are never converted, so that references to the nested Collections stay part of this Collection.
+	 * @param key The key of the item set.
+	 * @return Whether the item set has been converted (only {@link #MATERIALIZED} item sets can be converted).
+	 * @see #compact()
+	 */
+	public boolean dematerialize(String key) {
+		Object[] items = content.get(key);
+		if(items == null || items.length == 0) return false;
+		for(Object o : items) {
+			if(!restorable(o)) return false;
+		}
+		StringBuilder t = new StringBuilder("<").append(key).append(": ");
+		Collection c;
+		try {
+			writeItems(t, key, 0, 0);
+			c = new Collection(t.append(";>").toString());
+		} catch(IOException e) {
+			// StringBuilder does not throw IOExceptions
+			throw new java.io.UncheckedIOException(e);
+		} catch(InvalidSyntaxException | InvalidObjectException e) {
+			// E. g. objects which cannot be serialized
+			return false;
+		}
+		rawContent.put(key, c.rawContent.get(key));
+		content.remove(key);
+		if(touched != null) touched.remove(key);
+		invalidate(key);
+		return true;
+	}
+	
+	/**
+	 * @param o An interpreted item.
+	 * @return Whether the item would be interpreted as an equal item of the same type after being converted into text notation.
+	 */
+	private static boolean restorable(Object o) {
+		if(o instanceof String || o instanceof Boolean) return true;
+		else if(o instanceof Integer) return Parser.getNumType(o.toString()) == Parser.INTEGER;
+		else if(o instanceof Long) return Parser.getNumType(o.toString()) == Parser.LONG;
+		else if(o instanceof Double) return Parser.getNumType(o.toString()) == Parser.DOUBLE;
+		else if(o instanceof BigDecimal) return Parser.getNumType(o.toString()) == Parser.BIGDECIMAL;
+		else if(o instanceof Date) {
+			try {
+				return o.getClass() == Date.class && dateFormat.parse(dateFormat.format((Date) o)).equals(o);
+			} catch(java.text.ParseException e) {
+				return false;
+			}
+		} else return o instanceof Serializable && !(o instanceof Collection);
+	}
+	
+	/**
+	 * Converts every interpreted item set which has not been requested (by the accessors of this Collection) since the last call of this method back into text notation, unless its items would change.<br>
+	 * Nested Collections are compacted the same way (based on their own requests) instead of being converted.
+	 * @return The amount of converted item sets (including the ones of nested Collections).
+	 * @see #dematerialize(String)
+	 */
+	public int compact() {
+		return compact(new HashSet<>());
+	}
+	
+	/**
+	 * @param visited The Collections which have already been compacted (a Collection might be nested multiple times).
+	 * @return The amount of converted item sets.
+	 */
+	private int compact(HashSet<Collection> visited) {
+		if(!visited.add(this)) return 0;
+		int r = 0;
+		for(String k : content.keySet().toArray(new String[0])) {
+			if((touched == null || !touched.contains(k)) && dematerialize(k)) r++;
+			else for(Object o : content.get(k)) {
+				if(o instanceof Collection) r += ((Collection) o).compact(visited);
+			}
+		}
+		for(RawItemSet raw : rawContent.values()) {
+			for(int i = 0; i<raw.size(); i++) if(raw.nested(i) != null) r += raw.nested(i).compact(visited);
+		}
+		if(touched != null) touched.clear();
+		return r;
 	}
 	
 	/**
@@ -517,31 +1398,180 @@ public class Collection {
 	 * @throws InvalidObjectException If an object cannot be translated.
 	 */
 	public String toString(int whitespace) {
-		String r = "",
-				w = whitespace > 0 ? "\n" : "";
-		for(int i = 0; i<whitespace; i++) w += " ";
+		StringBuilder r = new StringBuilder();
+		try {
+			write(r, whitespace, 0);
+		} catch(IOException e) {
+			// StringBuilder does not throw IOExceptions
+			throw new java.io.UncheckedIOException(e);
+		} return r.toString();
+	}
+	
+	/**
+	 * Writes the Collection in text notation into the given Writer (without closing it).<br>
+	 * The text notation is written item set by item set, so the Collection never exists as a whole in text notation.
+	 * @param writer The Writer.
+	 * @param whitespace The amount of spaces after line breaks.
+	 * @see #toString(int)
+	 * @see #write(OutputStream, int)
+	 * @throws IOException If it is not possible to write.
+	 * @throws InvalidSyntaxException If a data type is invalid.
+	 * @throws InvalidObjectException If an object cannot be translated.
+	 */
+	public void write(Writer writer, int whitespace) throws IOException {
+		write((Appendable) writer, whitespace, 0);
+	}
+	
+	/**
+	 * Writes the Collection in text notation into the given stream (without closing it).
+	 * @param out The stream.
+	 * @param whitespace The amount of spaces after line breaks.
+	 * @see #write(Writer, int)
+	 * @see #writeCompressed(OutputStream, int, int)
+	 * @throws IOException If it is not possible to write.
+	 * @throws InvalidSyntaxException If a data type is invalid.
+	 * @throws InvalidObjectException If an object cannot be translated.
+	 */
+	public void write(OutputStream out, int whitespace) throws IOException {
+		Writer w = new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()));
+		write(w, whitespace);
+		w.flush();
+	}
+	
+	/**
+	 * Writes the Collection in text notation into the given file.
+	 * @param file The file.
+	 * @param whitespace The amount of spaces after line breaks.
+	 * @see #Collection(File)
+	 * @see #writeCompressed(File, int, int)
+	 * @throws IOException If it is not possible to write the file.
+	 * @throws InvalidSyntaxException If a data type is invalid.
+	 * @throws InvalidObjectException If an object cannot be translated.
+	 */
+	public void write(File file, int whitespace) throws IOException {
+		try(OutputStream out = new FileOutputStream(file)) {
+			write(out, whitespace);
+		}
+	}
+	
+	/**
+	 * Writes the Collection in text notation gzip compressed into the given stream (without closing it).<br>
+	 * Compressed Collections are detected automatically by {@link #Collection(InputStream)} and {@link #Collection(File)}.
+	 * @param out The stream.
+	 * @param whitespace The amount of spaces after line breaks.
+	 * @param level The compression level (from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION} or {@link Deflater#DEFAULT_COMPRESSION}).
+	 * @see #write(OutputStream, int)
+	 * @throws IOException If it is not possible to write.
+	 * @throws IllegalArgumentException If the compression level is invalid.
+	 * @throws InvalidSyntaxException If a data type is invalid.
+	 * @throws InvalidObjectException If an object cannot be translated.
+	 */
+	public void writeCompressed(OutputStream out, int whitespace, int level) throws IOException {
+		if((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) throw new IllegalArgumentException("Invalid compression level: " + level + ".");
+		CompressedStream g = new CompressedStream(out, level);
+		try {
+			write(g, whitespace);
+			g.finish();
+			out.flush();
+		} finally {
+			// Only releases the Deflater, the given stream stays open
+			g.end();
+		}
+	}
+	
+	/**
+	 * A gzip stream with a configurable compression level which does not close the underlying stream.
+	 */
+	private static class CompressedStream extends GZIPOutputStream {
 		
-		for(String k : keys()) {
-			String t = k + ": ";
-			for(Object o : asObjects(k)) {
-				if(o instanceof String) t += "\"" + Parser.prepareString(o.toString()) + "\"";
-				else if(o instanceof Integer) t += (int) o;
-				else if(o instanceof Long) t += (long) o;
-				else if(o instanceof Double) t += (double) o;
-				else if(o instanceof BigDecimal) t += ((BigDecimal) o).toString();
-				else if(o instanceof Boolean) t += ((boolean) o) ? "true" : "false";
-				else if(o instanceof Date) t += dateFormat.format((Date) o);
-				else if(o instanceof Collection) t += ((Collection) o).toString(whitespace).replace("\n", whitespace > 0 ? w : "\n");
-				else if(o instanceof Serializable) {
-					try {
-						t += "i[\"" + Parser.prepareString(Parser.toString((Serializable) o)) + "\"]";
-					} catch(IOException e) {
-						throw new InvalidObjectException("Object cannot be translated (key: \"" + k + "\").");
-					}
-				} else throw new InvalidSyntaxException("Unknown type: " + o + " cannot be interpreted (key: \"" + k + "\").");
-				t += ", ";
-			} r += t.substring(0, t.length()-2) + ";" + w;
-		} return "<" + w + (r.length() > 0 ? r.substring(0, r.length()-whitespace) : r) + ">";
+		CompressedStream(OutputStream out, int level) throws IOException {
+			super(out);
+			def.setLevel(level);
+		}
+		
+		/**
+		 * Releases the Deflater.
+		 */
+		void end() {
+			def.end();
+		}
+	
+	}
+	
+	/**
+	 * Writes the Collection in text notation gzip compressed into the given file.
+	 * @param file The file.
+	 * @param whitespace The amount of spaces after line breaks.
+	 * @param level The compression level (from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION} or {@link Deflater#DEFAULT_COMPRESSION}).
+	 * @see #Collection(File)
+	 * @see #write(File, int)
+	 * @throws IOException If it is not possible to write the file.
+	 * @throws IllegalArgumentException If the compression level is invalid.
+	 * @throws InvalidSyntaxException If a data type is invalid.
+	 * @throws InvalidObjectException If an object cannot be translated.
+	 */
+	public void writeCompressed(File file, int whitespace, int level) throws IOException {
+		try(OutputStream out = new FileOutputStream(file)) {
+			writeCompressed(out, whitespace, level);
+		}
+	}
+	
+	/**
+	 * @param out The target.
+	 * @param whitespace The amount of spaces after line breaks.
+	 * @param depth The amount of Collections this Collection is nested in.
+	 * @throws IOException If it is not possible to write.
+	 * @throws InvalidSyntaxException If a data type is invalid.
+	 * @throws InvalidObjectException If an object cannot be translated.
+	 */
+	private void write(Appendable out, int whitespace, int depth) throws IOException {
+		String[] keys = keys();
+		out.append('<');
+		for(String k : keys) {
+			indent(out, whitespace, depth+1);
+			out.append(k).append(": ");
+			writeItems(out, k, whitespace, depth);
+			out.append(';');
+		}
+		indent(out, whitespace, keys.length > 0 ? depth : depth+1);
+		out.append('>');
+	}
+	
+	/**
+	 * @param out The target.
+	 * @param k The key of the item set.
+	 * @param whitespace The amount of spaces after line breaks.
+	 * @param depth The amount of Collections this Collection is nested in.
+	 * @throws IOException If it is not possible to write.
+	 * @throws InvalidSyntaxException If a data type is invalid.
+	 * @throws InvalidObjectException If an object cannot be translated.
+	 */
+	private void writeItems(Appendable out, String k, int whitespace, int depth) throws IOException {
+		// Item sets stored outside of the heap are decoded item by item
+		SpilledItemSet sp = spilled(k);
+		Object[] items = sp == null ? objects(k) : null;
+		for(int i = 0, n = sp == null ? items.length : sp.size(); i<n; i++) {
+			Object o = sp == null ? items[i] : sp.get(i, k);
+			if(i > 0) out.append(", ");
+			if(o instanceof String) out.append('"').append(Parser.prepareString(o.toString())).append('"');
+			else if(o instanceof Integer || o instanceof Long || o instanceof Double || o instanceof BigDecimal) out.append(o.toString());
+			else if(o instanceof Boolean) out.append(((boolean) o) ? "true" : "false");
+			else if(o instanceof Date) out.append(dateFormat.format((Date) o));
+			else if(o instanceof Collection) ((Collection) o).write(out, whitespace, depth+1);
+			else if(o instanceof Serializable) {
+				try {
+					out.append("i[\"").append(Parser.prepareString(Parser.toString((Serializable) o))).append("\"]");
+				} catch(IOException e) {
+					throw new InvalidObjectException("Object cannot be translated (key: \"" + k + "\").");
+				}
+			} else throw new InvalidSyntaxException("Unknown type: " + o + " cannot be interpreted (key: \"" + k + "\").");
+		}
+	}
+	
+	private static void indent(Appendable out, int whitespace, int depth) throws IOException {
+		if(whitespace <= 0) return;
+		out.append('\n');
+		for(int i = 0; i<whitespace*depth; i++) out.append(' ');
 	}
 
 }
@@ -0,0 +1,217 @@
+package CCS;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The fingerprint (a 64 bit hash) of a single item set.<br>
+ * Item sets which are equal in content have equal fingerprints, no matter whether they have been interpreted yet or not. Every item is hashed together with its position, so a changed nested Collection only updates its own share of the fingerprint.
+ * @author Mika Thein
+ * @version 1.0
+ * @see Collection#fingerprint()
+ * @see Collection#contentEquals(Collection)
+ */
+class Fingerprint {
+	
+	private static final long M = 0x9E3779B97F4A7C15L;
+	
+	private static final int STRING = 1,
+			INTEGRAL = 2,
+			DOUBLE = 3,
+			BIGDECIMAL = 4,
+			BOOLEAN = 5,
+			DATE = 6,
+			COLLECTION = 7,
+			SERIALIZABLE = 8;
+	
+	private long hash;
+	private int size;
+	private HashMap<Collection, Nested> nested;
+	private HashSet<Collection> stale;
+	
+	/**
+	 * A nested Collection and the positions it occurs at.
+	 */
+	private static class Nested {
+		long hash;
+		final ArrayList<Integer> positions = new ArrayList<>();
+		Nested(long hash) {
+			this.hash = hash;
+		}
+	}
+	
+	private Fingerprint() {}
+	
+	/**
+	 * @param values The interpreted items.
+	 * @param key The key of the item set (used for error messages).
+	 * @return The fingerprint of the item set.
+	 * @throws InvalidObjectException If an object cannot be translated.
+	 */
+	static Fingerprint of(Object[] values, String key) {
+		Fingerprint f = new Fingerprint();
+		for(Object o : values) f.append(o, key);
+		return f;
+	}
+	
+	/**
+	 * @param raw The item set which has not been interpreted yet.
+	 * @param key The key of the item set (used for error messages).
+	 * @return The fingerprint of the item set.
+	 * @throws InvalidSyntaxException If the item set contains an invalid data type.
+	 * @throws InvalidObjectException If the class of an object does not exist or the object could not be interpreted.
+	 */
+	static Fingerprint of(RawItemSet raw, String key) {
+		Fingerprint f = new Fingerprint();
+		for(int i = 0; i<raw.size(); i++) {
+			if(raw.nested(i) != null) {
+				f.append(raw.nested(i), key);
+				continue;
+			}
+			String c = raw.item(i);
+			// Strings are hashed without being interpreted (serialized objects are not, since serializing the same object again might produce a different text)
+			if(c.startsWith("\"") && c.endsWith("\"") && c.length() > 1) f.add(item(STRING, hash(Parser.decodeString(c.substring(1, c.length()-1)))));
+			else f.append(Collection.interpret(c, key, i), key);
+		} return f;
+	}
+	
+	/**
+	 * @param spilled The item set which is stored outside of the heap.
+	 * @param key The key of the item set (used for error messages).
+	 * @return The fingerprint of the item set.
+	 * @throws InvalidObjectException If the class of an object does not exist or the object could not be interpreted.
+	 */
+	static Fingerprint of(SpilledItemSet spilled, String key) {
+		Fingerprint f = new Fingerprint();
+		for(int i = 0; i<spilled.size(); i++) f.append(spilled.get(i, key), key);
+		return f;
+	}
+	
+	private void add(long item) {
+		hash += position(size++, item);
+	}
+	
+	/**
+	 * Updates this fingerprint after an item has been appended to the item set.
+	 * @param value The appended item.
+	 * @param key The key of the item set (used for error messages).
+	 * @throws InvalidObjectException If an object cannot be translated.
+	 */
+	void append(Object value, String key) {
+		if(!(value instanceof Collection)) {
+			add(of(value, key));
+			return;
+		}
+		// Nested Collections are remembered, so a change of one of them only updates its own positions
+		if(nested == null) nested = new HashMap<>();
+		Collection c = (Collection) value;
+		Nested n = nested.get(c);
+		if(n == null) nested.put(c, n = new Nested(c.fingerprint()));
+		n.positions.add(size);
+		add(item(COLLECTION, n.hash));
+	}
+	
+	/**
+	 * @return The nested Collections of the item set.
+	 */
+	Set<Collection> nested() {
+		return nested == null ? Collections.emptySet() : nested.keySet();
+	}
+	
+	/**
+	 * Marks a nested Collection as changed, so that its share of this fingerprint will be updated on request.
+	 * @param c The changed Collection.
+	 * @return Whether the Collection is part of this item set and has not been marked before.
+	 */
+	boolean stale(Collection c) {
+		if(nested == null || !nested.containsKey(c)) return false;
+		if(stale == null) stale = new HashSet<>();
+		return stale.add(c);
+	}
+	
+	/**
+	 * @return The fingerprint of the item set.
+	 */
+	long value() {
+		if(stale != null && !stale.isEmpty()) {
+			for(Collection c : stale) {
+				Nested n = nested.get(c);
+				long h = c.fingerprint();
+				for(int i : n.positions) hash += position(i, item(COLLECTION, h)) - position(i, item(COLLECTION, n.hash));
+				n.hash = h;
+			} stale.clear();
+		} return hash + size*M;
+	}
+	
+	private static long position(int index, long item) {
+		return mix(index*M + item);
+	}
+	
+	/**
+	 * @param key The key of the item set.
+	 * @param value The fingerprint of the item set.
+	 * @return The share of the item set of the fingerprint of its Collection.
+	 */
+	static long key(String key, long value) {
+		return mix(hash(key) ^ mix(value));
+	}
+	
+	/**
+	 * @param o An interpreted item.
+	 * @param key The key of the item set (used for error messages).
+	 * @return The hash of the item.
+	 * @throws InvalidObjectException If the object cannot be translated.
+	 */
+	static long of(Object o, String key) {
+		if(o instanceof String) return item(STRING, hash((String) o));
+		else if(o instanceof Integer || o instanceof Long) return item(INTEGRAL, ((Number) o).longValue());
+		else if(o instanceof Double) return item(DOUBLE, Double.doubleToLongBits((double) o));
+		else if(o instanceof BigDecimal) return item(BIGDECIMAL, hash(o.toString()));
+		else if(o instanceof Boolean) return item(BOOLEAN, ((boolean) o) ? 1 : 0);
+		else if(o instanceof Date) return item(DATE, ((Date) o).getTime());
+		else if(o instanceof Collection) return item(COLLECTION, ((Collection) o).fingerprint());
+		else if(o instanceof Serializable) {
+			try {
+				return item(SERIALIZABLE, hash(Parser.toString((Serializable) o)));
+			} catch(IOException e) {
+				throw new InvalidObjectException("Object cannot be translated (key: \"" + key + "\").");
+			}
+		} else throw new InvalidSyntaxException("Unknown type: " + o + " cannot be interpreted (key: \"" + key + "\").");
+	}
+	
+	private static long item(int type, long value) {
+		return mix(type*M + value);
+	}
+	
+	/**
+	 * @param s The input string.
+	 * @return A 64 bit hash of the input string.
+	 */
+	static long hash(CharSequence s) {
+		long h = 1125899906842597L;
+		for(int i = 0; i<s.length(); i++) h = 31*h + s.charAt(i);
+		return mix(h);
+	}
+	
+	/**
+	 * Spreads the bits of the given value (finalizer of MurmurHash3).
+	 * @param h The input value.
+	 * @return The mixed value.
+	 */
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB93FE1A85A53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
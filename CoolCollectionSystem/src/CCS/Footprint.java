@@ -0,0 +1,67 @@
+package CCS;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Estimates the retained heap memory of items (assuming a 64 bit JVM with compressed references).<br>
+ * The estimates are supposed to compare Collections and item sets with each other, they are not exact.
+ * @author Mika Thein
+ * @version 1.0
+ * @see Collection#estimateBytes()
+ * @see Collection#contentBytes(String)
+ * @see Collection#rawBytes(String)
+ */
+class Footprint {
+	
+	static final int OBJECT = 16,
+			REFERENCE = 4,
+			ARRAY = 16,
+			STRING = 24,
+			MAP = 48,
+			MAP_ENTRY = 32;
+	
+	/**
+	 * @param values The interpreted items.
+	 * @return The estimated bytes of the array and its items.
+	 */
+	static long of(Object[] values) {
+		long b = ARRAY + (long) REFERENCE*values.length;
+		for(Object o : values) b += of(o);
+		return b;
+	}
+	
+	/**
+	 * @param o An interpreted item.
+	 * @return The estimated bytes of the item. (Nested Collections are estimated as a whole.)
+	 */
+	static long of(Object o) {
+		if(o instanceof Boolean) return 0;
+		else if(o instanceof Integer) return OBJECT;
+		else if(o instanceof Long || o instanceof Double || o instanceof Date) return OBJECT+8;
+		else if(o instanceof String) return chars(((String) o).length());
+		else if(o instanceof BigDecimal) {
+			int bits = ((BigDecimal) o).unscaledValue().bitLength();
+			return OBJECT+24 + (bits > 63 ? OBJECT+24 + ARRAY + bits/8 : 0);
+		} else if(o instanceof Collection) return ((Collection) o).estimateBytes();
+		else if(o instanceof Serializable) {
+			// The serialized size is a rough guess for the size of the object
+			try {
+				return OBJECT + Parser.toString((Serializable) o).length()*3/4;
+			} catch(IOException e) {
+				return OBJECT;
+			}
+		} else return OBJECT;
+	}
+	
+	/**
+	 * @param length The amount of characters.
+	 * @return The estimated bytes of a String with the given length (two bytes per character).
+	 */
+	static long chars(long length) {
+		return STRING + ARRAY + 2*length;
+	}
+	
+}
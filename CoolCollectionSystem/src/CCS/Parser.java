@@ -1,14 +1,20 @@
 package CCS;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.Reader;
 import java.io.Serializable;
 import java.math.BigDecimal;
+import java.nio.charset.Charset;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Used by the {@link Collection} class to parse a Collection.<br>
@@ -52,6 +58,111 @@ public class Parser {
 		}
 	}
 	
+	/**
+	 * The largest possible maximum depth. Writing, fingerprinting and comparing Collections are still recursive, so deeper Collections might exceed the stack of a thread (with the default stack size of 1 MB).
+	 * @see #setMaxDepth(int)
+	 */
+	public static final int DEPTH_LIMIT = 1024;
+	
+	private static int maxDepth = 512,
+			maxLength = Integer.MAX_VALUE;
+	
+	/**
+	 * @return The maximum amount of nested levels of a Collection (including the outermost one).
+	 * @see #setMaxDepth(int)
+	 */
+	public static int getMaxDepth() {
+		return maxDepth;
+	}
+	
+	/**
+	 * Collections which are nested deeper than the given amount of levels will be rejected while parsing.
+	 * @param depth The maximum amount of nested levels of a Collection (including the outermost one).
+	 * @throws IllegalArgumentException If the depth is smaller than 1 or larger than {@link #DEPTH_LIMIT}.
+	 * @see #getMaxDepth()
+	 */
+	public static void setMaxDepth(int depth) {
+		if(depth < 1 || depth > DEPTH_LIMIT) throw new IllegalArgumentException("The maximum depth has to be between 1 and " + DEPTH_LIMIT + ".");
+		maxDepth = depth;
+	}
+	
+	/**
+	 * @return The maximum amount of characters of a Collection in text notation.
+	 * @see #setMaxLength(int)
+	 */
+	public static int getMaxLength() {
+		return maxLength;
+	}
+	
+	/**
+	 * Texts which are longer than the given amount of characters will be rejected before parsing.
+	 * @param length The maximum amount of characters of a Collection in text notation.
+	 * @throws IllegalArgumentException If the length is smaller than 2.
+	 * @see #getMaxLength()
+	 */
+	public static void setMaxLength(int length) {
+		if(length < 2) throw new IllegalArgumentException("The maximum length has to be at least 2.");
+		maxLength = length;
+	}
+	
+	/**
+	 * Parses the first Collection of the given text into the given Collection with a single scan and without recursion.<br>
+	 * Nested Collections are built on the way and share the buffer of the given text. Their item sets (just like the ones of the given Collection) will be interpreted when they are requested.
+	 * @param str Unparsed Collection in text notation.
+	 * @param target The (empty) Collection which is supposed to be filled.
+	 * @throws InvalidSyntaxException If the text does not contain a Collection, if a key is invalid or exists multiple times or if a limit is exceeded.
+	 * @see #getMaxDepth()
+	 * @see #getMaxLength()
+	 * @see ParserContext
+	 */
+	static void parse(String str, Collection target) {
+		new ParserContext(false).parse(str, target);
+	}
+	
+	/**
+	 * @param str The input string.
+	 * @param from The start index (inclusive).
+	 * @param to The end index (exclusive).
+	 * @return The given part of the input string without line breaks and tabs.
+	 * @see #strip(String)
+	 */
+	static String clean(String str, int from, int to) {
+		StringBuilder r = null;
+		for(int i = from; i<to; i++) {
+			char c = str.charAt(i);
+			if(c == '\n' || c == '\t' || c == '\r') {
+				if(r == null) r = new StringBuilder(to-from).append(str, from, i);
+			} else if(r != null) r.append(c);
+		} return r == null ? str.substring(from, to) : r.toString();
+	}
+	
+	/**
+	 * Reads the whole text of a stream (without closing it).<br>
+	 * Gzip compressed streams are detected by their first two bytes and decompressed while reading. (Other formats are not detected, since plain text in front of a Collection may start with any characters.)<br>
+	 * <b>Please note:</b> The text is collected in a buffer which is copied into the resulting String, so reading needs up to about twice the memory of the text.
+	 * @param in The stream.
+	 * @return The (decompressed) text.
+	 * @throws IOException If it is not possible to read the stream.
+	 * @throws InvalidSyntaxException If the text exceeds the maximum length.
+	 * @see #getMaxLength()
+	 */
+	public static String read(InputStream in) throws IOException {
+		BufferedInputStream b = new BufferedInputStream(in);
+		b.mark(2);
+		int m0 = b.read(), m1 = b.read();
+		b.reset();
+		InputStream s = b;
+		if(m0 == 0x1F && m1 == 0x8B) s = new GZIPInputStream(b);
+		
+		Reader r = new InputStreamReader(s, Charset.defaultCharset());
+		StringBuilder t = new StringBuilder();
+		char[] buffer = new char[8192];
+		for(int n; (n = r.read(buffer)) > -1;) {
+			if(t.length()+n > maxLength) throw new InvalidSyntaxException("The Collection exceeds the maximum length of " + maxLength + " characters.");
+			t.append(buffer, 0, n);
+		} return t.toString();
+	}
+	
 	/**
 	 * Splits a string at every delimiter outside of quotes and Collections.
 	 * @param str The input string.
@@ -130,35 +241,40 @@ public class Parser {
 	 * @see #decodeString(String)
 	 */
 	public static String prepareString(String str) {
-		String r = "";
+		StringBuilder r = null;
 		for(int i = 0; i<str.length(); i++) {
+			String e;
 			switch(str.charAt(i)) {
 				case '\n':
-					r += "\\n";
+					e = "\\n";
 					break;
 				case '\\':
-					r += "\\\\";
+					e = "\\\\";
 					break;
 				case '\r':
-					r += "\\r";
+					e = "\\r";
 					break;
 				case '"':
-					r += "\\\"";
+					e = "\\\"";
 					break;
 				case '\b':
-					r += "\\b";
+					e = "\\b";
 					break;
 				case '\t':
-					r += "\\t";
+					e = "\\t";
 					break;
 				case '\f':
-					r += "\\f";
+					e = "\\f";
 					break;
 				default:
-					r += str.charAt(i);
+					if(r != null) r.append(str.charAt(i));
+					continue;
 			}
+			// Strings without escapes are not copied
+			if(r == null) r = new StringBuilder(str.length()+16).append(str, 0, i);
+			r.append(e);
 		}
-		return r;
+		return r == null ? str : r.toString();
 	}
 	
 	/**
@@ -169,37 +285,39 @@ public class Parser {
 	 * @see #prepareString(String)
 	 */
 	public static String decodeString(String str) {
-		String r = "";
+		// Strings without escapes are not copied
+		if(str.indexOf('\\') < 0) return str;
+		StringBuilder r = new StringBuilder(str.length());
 		for(int i = 0; i<str.length(); i++) {
 			if(str.charAt(i) == '\\') {
 				if(str.length() <= i+1) throw new InvalidSyntaxException("Invalid backslash escape: \"" + str + "\", char at: " + i + ".");
 				switch(str.charAt(i+1)) {
 					case 'n':
-						r += "\n"; i++;
+						r.append("\n"); i++;
 						break;
 					case '\\':
-						r += "\\"; i++;
+						r.append("\\"); i++;
 						break;
 					case 'r':
-						r += "\r"; i++;
+						r.append("\r"); i++;
 						break;
 					case '"':
-						r += "\""; i++;
+						r.append("\""); i++;
 						break;
 					case 'b':
-						r += "\b"; i++;
+						r.append("\b"); i++;
 						break;
 					case 't':
-						r += "\t"; i++;
+						r.append("\t"); i++;
 						break;
 					case 'f':
-						r += "\f"; i++;
+						r.append("\f"); i++;
 						break;
 					default:
 						throw new InvalidSyntaxException("Invalid backslash escape: \"" + str + "\", char at: " + (i+1) + " ('\\" + str.charAt(i+1) + "').");
 				}
-			} else r += str.charAt(i);
-		} return r;
+			} else r.append(str.charAt(i));
+		} return r.toString();
 	}
 	
 	/**
@@ -208,7 +326,11 @@ public class Parser {
 	 * @return Whether the key is a valid key.
 	 */
 	public static boolean isValidKey(String key) {
-		return key.matches("[a-zA-Z_\\- ]+");
+		if(key.isEmpty()) return false;
+		for(int i = 0; i<key.length(); i++) {
+			char c = key.charAt(i);
+			if(!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_' || c == '-' || c == ' ')) return false;
+		} return true;
 	}
 	
 	public static final int INTEGER = 0,
@@ -225,16 +347,37 @@ public class Parser {
 	 * @see #BIGDECIMAL
 	 */
 	public static int getNumType(String str) {
-		try {
-			long l = Long.parseLong(str);
-			return Math.abs(l) > Integer.MAX_VALUE ? LONG : INTEGER;
-		} catch(java.lang.NumberFormatException e1) {
-			try {
-				BigDecimal d = new BigDecimal(str);
-				if(d.abs().doubleValue() == Double.POSITIVE_INFINITY) return BIGDECIMAL;
-				return d.compareTo(BigDecimal.valueOf(d.doubleValue())) != 0 ? BIGDECIMAL : DOUBLE;
-			} catch(java.lang.NumberFormatException e2) { return -1; }
+		// Neither valid numbers nor texts which cannot be numbers throw exceptions
+		boolean integral = true;
+		for(int i = 0; i<str.length(); i++) {
+			char c = str.charAt(i);
+			if(c == '.' || c == 'e' || c == 'E') integral = false;
+			else if(!(c >= '0' && c <= '9' || c == '+' || c == '-')) return -1;
 		}
+		if(str.isEmpty()) return -1;
+		if(integral) {
+			boolean negative = str.charAt(0) == '-';
+			int i = negative || str.charAt(0) == '+' ? 1 : 0;
+			if(i == str.length()) return -1;
+			// Accumulated negatively, so that the smallest long fits as well
+			long l = 0;
+			for(; i<str.length() && integral; i++) {
+				int d = str.charAt(i)-'0';
+				if(d < 0 || d > 9) return -1;
+				if(l < Long.MIN_VALUE/10 || l*10 < Long.MIN_VALUE+d) integral = false;
+				else l = l*10-d;
+			}
+			if(integral && (negative || l != Long.MIN_VALUE)) {
+				if(!negative) l = -l;
+				return Math.abs(l) > Integer.MAX_VALUE ? LONG : INTEGER;
+			}
+		}
+		// Numbers which do not fit into a long
+		try {
+			BigDecimal d = new BigDecimal(str);
+			if(d.abs().doubleValue() == Double.POSITIVE_INFINITY) return BIGDECIMAL;
+			return d.compareTo(BigDecimal.valueOf(d.doubleValue())) != 0 ? BIGDECIMAL : DOUBLE;
+		} catch(java.lang.NumberFormatException e) { return -1; }
 	}
 
 }
@@ -0,0 +1,262 @@
+package CCS;
+
+import java.util.Arrays;
+
+/**
+ * A reusable state for parsing Collections.<br>
+ * A ParserContext keeps its scan stack and a table of known keys, so parsing many Collections of a similar shape with the same context (and into the same Collection) barely allocates any memory:<br>
+ * {@code ParserContext context = new ParserContext();}<br>
+ * {@code Collection message = new Collection();}<br>
+ * {@code while(...) context.parseInto(message, nextMessage(), true);}<br>
+ * <b>Please note:</b> A ParserContext must not be used by multiple threads at the same time.
+ * @author Mika Thein
+ * @version 1.0
+ * @see #parseInto(Collection, CharSequence, boolean)
+ * @see Collection#reset()
+ * @see Parser
+ */
+public class ParserContext {
+	
+	private static final int MAX_KEYS = 4096;
+	
+	private Frame[] frames = new Frame[8];
+	private String[] keys;
+	private int keyCount;
+	
+	/**
+	 * Creates a new ParserContext.
+	 * @see #parseInto(Collection, CharSequence, boolean)
+	 */
+	public ParserContext() {
+		this(true);
+	}
+	
+	/**
+	 * @param internKeys Whether known keys are supposed to be looked up in a key table (which only pays off if the context is reused).
+	 */
+	ParserContext(boolean internKeys) {
+		if(internKeys) keys = new String[64];
+	}
+	
+	/**
+	 * Resets the given Collection and fills it with the given Collection in text notation.<br>
+	 * Nested Collections of the previous content of the given Collection are not reused, so they stay valid.<br>
+	 * (The text is converted into a String, so the given CharSequence may be changed afterwards.)
+	 * @param target The Collection which is supposed to be filled.
+	 * @param collection The Collection in text notation.
+	 * @return The given Collection.
+	 * @see #parseInto(Collection, CharSequence, boolean)
+	 * @see Collection#reset()
+	 * @throws InvalidSyntaxException If the text does not contain a Collection, if a key is invalid or exists multiple times or if a limit is exceeded.
+	 */
+	public Collection parseInto(Collection target, CharSequence collection) {
+		return parseInto(target, collection, false);
+	}
+	
+	/**
+	 * Resets the given Collection and fills it with the given Collection in text notation.<br>
+	 * If recycling is enabled, nested Collections and item sets of the previous content of the given Collection (if it has been filled with recycling enabled as well) are reused. They are changed in place, so they must not be used anymore after calling this method.<br>
+	 * (The text is converted into a String, so the given CharSequence may be changed afterwards.)
+	 * @param target The Collection which is supposed to be filled.
+	 * @param collection The Collection in text notation.
+	 * @param recycle Whether the previous content of the given Collection is supposed to be reused.
+	 * @return The given Collection.
+	 * @see Collection#reset()
+	 * @throws InvalidSyntaxException If the text does not contain a Collection, if a key is invalid or exists multiple times or if a limit is exceeded.
+	 */
+	public Collection parseInto(Collection target, CharSequence collection, boolean recycle) {
+		if(!recycle) target.recycle(false);
+		target.reset();
+		if(recycle) target.recycle(true);
+		parse(collection.toString(), target);
+		return target;
+	}
+	
+	/**
+	 * Parses the first Collection of the given text into the given Collection with a single scan and without recursion.
+	 * @param str Unparsed Collection in text notation.
+	 * @param target The (empty) Collection which is supposed to be filled.
+	 * @throws InvalidSyntaxException If the text does not contain a Collection, if a key is invalid or exists multiple times or if a limit is exceeded.
+	 * @see Parser#parse(String, Collection)
+	 */
+	void parse(String str, Collection target) {
+		int maxDepth = Parser.getMaxDepth(),
+				maxLength = Parser.getMaxLength();
+		if(str.length() > maxLength) throw new InvalidSyntaxException("The Collection exceeds the maximum length of " + maxLength + " characters.");
+		int f = -1;
+		boolean quote = false;
+		for(int i = 0; i<str.length() && f < 0; i++) {
+			if(str.charAt(i) == '\\') i++;
+			else if(str.charAt(i) == '\"') quote = !quote;
+			else if(str.charAt(i) == '<' && !quote) f = i;
+		}
+		if(f < 0) throw new InvalidSyntaxException("Missing collection! A Collection has to start with a '<' and has to end with a '>'.");
+		
+		int depth = 0;
+		Frame frame = frame(depth, target, f);
+		quote = false;
+		for(int i = f+1; i<str.length(); i++) {
+			char c = str.charAt(i);
+			if(frame.key == null) {
+				if(c == ':') frame.key(key(str, frame.from, i), str, i);
+				else if(c == ';' || c == '>') {
+					if(!blank(str, frame.from, i)) throw new InvalidSyntaxException("Missing ':' after key: \"" + Parser.clean(str, frame.from, i).trim() + "\".");
+					frame.from = i+1;
+				} else if(c == '<' || c == '"' || c == '\\') throw new InvalidSyntaxException("Invalid key: \"" + Parser.clean(str, frame.from, i+1).trim() + "\".");
+			} else if(c == '\\') i++;
+			else if(c == '"') quote = !quote;
+			else if(quote) continue;
+			else if(c == '<') {
+				if(depth+1 >= maxDepth) throw new InvalidSyntaxException("The Collection exceeds the maximum depth of " + maxDepth + " levels.");
+				frame = frame(++depth, frame.collection.child(), i);
+			} else if(c == ',') frame.item(str, i);
+			else if(c == ';' || c == '>') {
+				frame.item(str, i);
+				frame.close();
+			}
+			if(c == '>' && !quote) {
+				if(depth == 0) {
+					frame.clear();
+					return;
+				}
+				Frame child = frame;
+				frame = frames[--depth];
+				frame.child(child.collection, child.start, i+1);
+				child.clear();
+			}
+		}
+		for(int i = 0; i<=depth; i++) frames[i].clear();
+		throw new InvalidSyntaxException("Missing collection! A Collection has to start with a '<' and has to end with a '>'.");
+	}
+	
+	private Frame frame(int depth, Collection collection, int start) {
+		if(depth == frames.length) frames = Arrays.copyOf(frames, depth*2);
+		if(frames[depth] == null) frames[depth] = new Frame();
+		frames[depth].init(collection, start);
+		return frames[depth];
+	}
+	
+	private static boolean blank(String str, int from, int to) {
+		for(int i = from; i<to; i++) {
+			if(str.charAt(i) > ' ') return false;
+		} return true;
+	}
+	
+	/**
+	 * Returns the (trimmed) key between the given indices. Known keys are looked up in the key table (if there is one) instead of being copied.
+	 * @param str The input string.
+	 * @param from The start index (inclusive).
+	 * @param to The end index (exclusive).
+	 * @return The key.
+	 * @throws InvalidSyntaxException If the key is invalid.
+	 */
+	private String key(String str, int from, int to) {
+		while(from < to && str.charAt(from) <= ' ') from++;
+		while(to > from && str.charAt(to-1) <= ' ') to--;
+		if(keys == null) return validKey(Parser.clean(str, from, to));
+		int h = 0;
+		for(int i = from; i<to; i++) {
+			char c = str.charAt(i);
+			if(c == '\n' || c == '\t' || c == '\r') return validKey(Parser.clean(str, from, to));
+			h = 31*h + c;
+		}
+		int mask = keys.length-1;
+		for(int i = h & mask; keys[i] != null; i = (i+1) & mask) {
+			if(keys[i].length() == to-from && str.startsWith(keys[i], from)) return keys[i];
+		}
+		String k = validKey(str.substring(from, to));
+		if(keyCount < MAX_KEYS) {
+			if(++keyCount*2 > keys.length) {
+				String[] t = keys;
+				keys = new String[t.length*2];
+				for(String s : t) if(s != null) insert(s);
+			}
+			insert(k);
+		} return k;
+	}
+	
+	private void insert(String k) {
+		int mask = keys.length-1, i = k.hashCode() & mask;
+		while(keys[i] != null) i = (i+1) & mask;
+		keys[i] = k;
+	}
+	
+	private static String validKey(String k) {
+		if(!Parser.isValidKey(k)) throw new InvalidSyntaxException("Invalid key: \"" + k + "\".");
+		return k;
+	}
+	
+	/**
+	 * The state of a Collection which has not been closed yet.
+	 */
+	private static class Frame {
+		
+		Collection collection;
+		int start;
+		String key;
+		int from;
+		
+		RawItemSet items;
+		int empty;
+		
+		Collection child;
+		int childFrom, childTo, children;
+		
+		void init(Collection collection, int start) {
+			clear();
+			this.collection = collection;
+			this.start = start;
+			this.from = start+1;
+		}
+		
+		void clear() {
+			collection = null;
+			key = null;
+			items = null;
+			child = null;
+			children = 0;
+			empty = 0;
+		}
+		
+		void key(String k, String str, int i) {
+			if(collection.rawContent.containsKey(k)) throw new InvalidSyntaxException("An item set with the key \"" + k + "\" does already exist.");
+			key = k;
+			items = collection.itemSet(str);
+			from = i+1;
+		}
+		
+		void child(Collection c, int f, int t) {
+			child = c;
+			childFrom = f;
+			childTo = t;
+			children++;
+		}
+		
+		void item(String str, int i) {
+			if(blank(str, from, i)) {
+				// Empty (or blank) items at the end of an item set are ignored (just like String#split does)
+				empty++;
+				from = i+1;
+				return;
+			}
+			for(; empty > 0; empty--) items.add(from, from, null);
+			int a = from, b = i;
+			while(a < b && str.charAt(a) <= ' ') a++;
+			while(b > a && str.charAt(b-1) <= ' ') b--;
+			items.add(a, b, children == 1 && childFrom == a && childTo == b ? child : null);
+			from = i+1;
+			child = null;
+			children = 0;
+		}
+		
+		void close() {
+			if(items.size() == 0) items.add(from-1, from-1, null);
+			collection.rawContent.put(key, items);
+			key = null;
+			items = null;
+			empty = 0;
+		}
+	
+	}
+
+}
@@ -0,0 +1,99 @@
+package CCS;
+
+import java.util.Arrays;
+
+/**
+ * An item set which has not been interpreted yet.<br>
+ * It does not copy its items but refers to their positions inside of the text notation it was parsed from. (The buffer is shared with every other item set and nested Collection of the same text notation.)
+ * @author Mika Thein
+ * @version 1.0
+ * @see ParserContext
+ * @see Collection
+ */
+class RawItemSet {
+	
+	private String source;
+	private int[] bounds = new int[8];
+	private Collection[] nested = new Collection[4];
+	private int size;
+	
+	/**
+	 * Creates an empty item set.
+	 * @param source The text notation the items are part of.
+	 */
+	RawItemSet(String source) {
+		this.source = source;
+	}
+	
+	/**
+	 * Removes every item so that this item set can be reused.
+	 * @param source The text notation the new items are part of.
+	 */
+	void clear(String source) {
+		Arrays.fill(nested, 0, size, null);
+		this.source = source;
+		size = 0;
+	}
+	
+	/**
+	 * Adds an item.
+	 * @param from The (trimmed) start index of the item.
+	 * @param to The (trimmed) end index of the item.
+	 * @param collection The already parsed Collection if the item consists of exactly one Collection, otherwise {@code null}.
+	 */
+	void add(int from, int to, Collection collection) {
+		if(size*2 == bounds.length) bounds = Arrays.copyOf(bounds, bounds.length*2);
+		if(size == nested.length) nested = Arrays.copyOf(nested, nested.length*2);
+		bounds[size*2] = from;
+		bounds[size*2+1] = to;
+		nested[size] = collection;
+		size++;
+	}
+	
+	/**
+	 * @return The amount of items.
+	 */
+	int size() {
+		return size;
+	}
+	
+	/**
+	 * @param index The index of the item.
+	 * @return The item in text notation (without line breaks and tabs).
+	 */
+	String item(int index) {
+		return Parser.clean(source, bounds[index*2], bounds[index*2+1]);
+	}
+	
+	/**
+	 * @param index The index of the item.
+	 * @return The already parsed Collection, or {@code null} if the item is not a Collection.
+	 */
+	Collection nested(int index) {
+		return nested[index];
+	}
+	
+	/**
+	 * The text of nested Collections is estimated by the nested Collections themselves. The text notation itself is shared with other item sets, so it stays on the heap as long as any of them does.
+	 * @return The estimated bytes of this item set (including its share of the text notation).
+	 */
+	long bytes() {
+		long b = Footprint.OBJECT + 2*Footprint.ARRAY + 4L*bounds.length + (long) Footprint.REFERENCE*nested.length;
+		for(int i = 0; i<size; i++) b += nested[i] != null ? nested[i].estimateBytes() : 2L*(bounds[i*2+1]-bounds[i*2]);
+		return b;
+	}
+	
+	/**
+	 * @param index The index of the item.
+	 * @param other Another item set.
+	 * @param otherIndex The index of the item of the other item set.
+	 * @return Whether both items are equal in text notation (without line breaks and tabs).
+	 */
+	boolean textEquals(int index, RawItemSet other, int otherIndex) {
+		int f = bounds[index*2], l = bounds[index*2+1]-f,
+				g = other.bounds[otherIndex*2];
+		if(l == other.bounds[otherIndex*2+1]-g && source.regionMatches(f, other.source, g, l)) return true;
+		return item(index).equals(other.item(otherIndex));
+	}
+
+}
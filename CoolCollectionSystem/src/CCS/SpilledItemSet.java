@@ -0,0 +1,271 @@
+package CCS;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * An item set which is stored outside of the Java heap (in direct memory or in a temporary memory-mapped file).<br>
+ * Every item is encoded as a type byte followed by its value: numbers, booleans and dates in binary, everything else as UTF-8 text. Nested Collections cannot be stored, since changes of the decoded copies would be lost.<br>
+ * The encoded items of a single item set may not exceed 2 GB.
+ * @author Mika Thein
+ * @version 1.0
+ * @see Collection#setSpillThreshold(int)
+ * @see Collection#setSpillDirectory(File)
+ */
+class SpilledItemSet {
+	
+	static final byte INTEGER = 0,
+			LONG = 1,
+			DOUBLE = 2,
+			BIGDECIMAL = 3,
+			BOOLEAN = 4,
+			STRING = 5,
+			DATE = 6,
+			SERIALIZABLE = 7;
+	
+	private final FileChannel dataChannel, offsetChannel;
+	private ByteBuffer data, offsets;
+	private int size, end;
+	
+	/**
+	 * Creates an empty item set.
+	 * @param directory The directory of the temporary file, or {@code null} to use direct memory.
+	 * @throws InvalidObjectException If the temporary file cannot be created.
+	 */
+	SpilledItemSet(File directory) {
+		dataChannel = directory == null ? null : channel(directory);
+		try {
+			offsetChannel = directory == null ? null : channel(directory);
+		} catch(InvalidObjectException e) {
+			close(dataChannel);
+			throw e;
+		}
+		try {
+			data = allocate(dataChannel, 1 << 16);
+			offsets = allocate(offsetChannel, 1 << 12);
+		} catch(InvalidObjectException e) {
+			close();
+			throw e;
+		}
+	}
+	
+	private static FileChannel channel(File directory) {
+		try {
+			File f = File.createTempFile("ccs", ".spill", directory);
+			@SuppressWarnings("resource")
+			FileChannel c = new RandomAccessFile(f, "rw").getChannel();
+			// The mapping stays valid after the file has been deleted (not on every operating system though)
+			if(!f.delete()) f.deleteOnExit();
+			return c;
+		} catch(IOException e) {
+			throw new InvalidObjectException("Cannot create spill file in \"" + directory + "\".");
+		}
+	}
+	
+	/**
+	 * @param channel The file to map, or {@code null} to use direct memory.
+	 * @param capacity The capacity in bytes.
+	 * @return The buffer. (A mapped buffer contains everything which has been written into the file before.)
+	 */
+	private static ByteBuffer allocate(FileChannel channel, int capacity) {
+		if(channel == null) return ByteBuffer.allocateDirect(capacity);
+		try {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		} catch(IOException e) {
+			throw new InvalidObjectException("Cannot map spill file.");
+		}
+	}
+	
+	/**
+	 * @return The amount of items.
+	 */
+	int size() {
+		return size;
+	}
+	
+	/**
+	 * Appends an item.
+	 * @param o The item.
+	 * @param key The key of the item set (used for error messages).
+	 * @throws InvalidSyntaxException If the data type of the item is invalid (or if the item is a Collection).
+	 * @throws InvalidObjectException If the object cannot be translated or the item set exceeds 2 GB.
+	 */
+	void add(Object o, String key) {
+		byte[] text = null;
+		byte type;
+		int length;
+		if(o instanceof Integer) { type = INTEGER; length = 4; }
+		else if(o instanceof Long) { type = LONG; length = 8; }
+		else if(o instanceof Double) { type = DOUBLE; length = 8; }
+		else if(o instanceof Boolean) { type = BOOLEAN; length = 1; }
+		else if(o instanceof Date) { type = DATE; length = 8; }
+		else {
+			if(o instanceof String) { type = STRING; text = ((String) o).getBytes(StandardCharsets.UTF_8); }
+			else if(o instanceof BigDecimal) { type = BIGDECIMAL; text = o.toString().getBytes(StandardCharsets.UTF_8); }
+			else if(o instanceof Serializable) {
+				type = SERIALIZABLE;
+				try {
+					text = Parser.toString((Serializable) o).getBytes(StandardCharsets.US_ASCII);
+				} catch(IOException e) {
+					throw new InvalidObjectException("Object cannot be translated (key: \"" + key + "\").");
+				}
+			} else throw new InvalidSyntaxException("Unknown type: " + o + " cannot be interpreted (key: \"" + key + "\").");
+			length = 4+text.length;
+		}
+		if((long) end+1+length > Integer.MAX_VALUE-8) throw new InvalidObjectException("The item set exceeds the spill capacity (key: \"" + key + "\").");
+		data = ensure(data, dataChannel, end+1+length, end);
+		offsets = ensure(offsets, offsetChannel, (size+1)*4, size*4);
+		offsets.putInt(size*4, end);
+		data.put(end, type);
+		int p = end+1;
+		switch(type) {
+			case INTEGER: data.putInt(p, (int) o); break;
+			case LONG: data.putLong(p, (long) o); break;
+			case DOUBLE: data.putDouble(p, (double) o); break;
+			case BOOLEAN: data.put(p, (byte) (((boolean) o) ? 1 : 0)); break;
+			case DATE: data.putLong(p, ((Date) o).getTime()); break;
+			default:
+				data.putInt(p, text.length);
+				for(int i = 0; i<text.length; i++) data.put(p+4+i, text[i]);
+		}
+		end += 1+length;
+		size++;
+	}
+	
+	private static ByteBuffer ensure(ByteBuffer b, FileChannel channel, int capacity, int used) {
+		if(capacity <= b.capacity()) return b;
+		int c = (int) Math.min(Integer.MAX_VALUE-8, Math.max((long) b.capacity()*2, capacity));
+		// Mapped buffers grow inside of their file, so they do not have to be copied
+		ByteBuffer n = allocate(channel, c);
+		if(channel == null) {
+			ByteBuffer o = b.duplicate();
+			o.position(0);
+			o.limit(used);
+			n.put(o);
+		} return n;
+	}
+	
+	/**
+	 * @param index The index of the item.
+	 * @return The type of the item.
+	 * @see #INTEGER
+	 */
+	byte type(int index) {
+		return data.get(offsets.getInt(index*4));
+	}
+	
+	/**
+	 * @param index The index of an integer or long item.
+	 * @return The item as long.
+	 */
+	long integral(int index) {
+		int p = offsets.getInt(index*4);
+		return data.get(p) == INTEGER ? data.getInt(p+1) : data.getLong(p+1);
+	}
+	
+	/**
+	 * @param index The index of a double item.
+	 * @return The item as double.
+	 */
+	double real(int index) {
+		return data.getDouble(offsets.getInt(index*4)+1);
+	}
+	
+	/**
+	 * Decodes a single item.
+	 * @param index The index of the item.
+	 * @param key The key of the item set (used for error messages).
+	 * @return The item.
+	 * @throws InvalidObjectException If the class of an object does not exist or the object could not be interpreted.
+	 */
+	Object get(int index, String key) {
+		int p = offsets.getInt(index*4);
+		byte type = data.get(p);
+		switch(type) {
+			case INTEGER: return data.getInt(p+1);
+			case LONG: return data.getLong(p+1);
+			case DOUBLE: return data.getDouble(p+1);
+			case BOOLEAN: return data.get(p+1) == 1;
+			case DATE: return new Date(data.getLong(p+1));
+		}
+		byte[] text = new byte[data.getInt(p+1)];
+		for(int i = 0; i<text.length; i++) text[i] = data.get(p+5+i);
+		String s = new String(text, type == SERIALIZABLE ? StandardCharsets.US_ASCII : StandardCharsets.UTF_8);
+		switch(type) {
+			case STRING: return s;
+			case BIGDECIMAL: return new BigDecimal(s);
+			default:
+				try {
+					return Parser.toObject(s);
+				} catch(ClassNotFoundException e) {
+					throw new InvalidObjectException("Class not found (key: \"" + key + "\").");
+				} catch(IOException e) {
+					throw new InvalidObjectException("Cannot interpretate object (key: \"" + key + "\").");
+				}
+		}
+	}
+	
+	/**
+	 * Removes a single item by moving the encoded items behind it (without decoding them).
+	 * @param index The index of the item.
+	 */
+	void remove(int index) {
+		int from = offsets.getInt(index*4),
+				to = index+1 < size ? offsets.getInt((index+1)*4) : end,
+				length = to-from;
+		byte[] chunk = new byte[Math.max(1, Math.min(1 << 13, end-to))];
+		ByteBuffer src = data.duplicate(), dst = data.duplicate();
+		src.position(to);
+		dst.position(from);
+		// The target is in front of the source, so moving chunk by chunk does not overwrite unread bytes
+		for(int n; (n = Math.min(chunk.length, end-src.position())) > 0;) {
+			src.get(chunk, 0, n);
+			dst.put(chunk, 0, n);
+		}
+		for(int i = index+1; i<size; i++) offsets.putInt((i-1)*4, offsets.getInt(i*4)-length);
+		end -= length;
+		size--;
+	}
+	
+	/**
+	 * @return The bytes used outside of the heap.
+	 */
+	long bytes() {
+		return end + 4L*size;
+	}
+	
+	/**
+	 * Decodes every item.
+	 * @param key The key of the item set (used for error messages).
+	 * @return The items.
+	 * @throws InvalidObjectException If the class of an object does not exist or the object could not be interpreted.
+	 */
+	Object[] toArray(String key) {
+		Object[] r = new Object[size];
+		for(int i = 0; i<size; i++) r[i] = get(i, key);
+		return r;
+	}
+	
+	/**
+	 * Releases the storage of this item set. (Direct memory is released by the garbage collector.)
+	 */
+	void close() {
+		close(dataChannel);
+		close(offsetChannel);
+	}
+	
+	private static void close(FileChannel channel) {
+		if(channel == null) return;
+		try {
+			channel.close();
+		} catch(IOException e) {}
+	}
+
+}